@@ -1,7 +1,9 @@
 package net.bennokue.java.osmosis.plugins.aster;
 
 import java.io.File;
+import java.util.Locale;
 import java.util.logging.Logger;
+import org.openstreetmap.osmosis.core.OsmosisRuntimeException;
 import org.openstreetmap.osmosis.core.pipeline.common.TaskConfiguration;
 import org.openstreetmap.osmosis.core.pipeline.common.TaskManager;
 import org.openstreetmap.osmosis.core.pipeline.common.TaskManagerFactory;
@@ -23,20 +25,46 @@ public class AsterPlugin_factory extends TaskManagerFactory {
     private static final String ARG_ASTER_DIR = "asterDir";
     private static final String DEFAULT_ASTER_DIR = "./";
 
+    // Binary file for storing node ID -> elevation, defaults to none
+    private static final String ARG_ELEVATION_FILE = "eleFile";
+    private static final String DEFAULT_ELEVATION_FILE = "";
+
+    // How to store the elevations in the binary file: short or float, defaults to short
+    private static final String ARG_ELEVATION_FILE_TYPE = "eleFileType";
+    private static final String DEFAULT_ELEVATION_FILE_TYPE = "short";
+
+    // Option to store the elevations as tags, defaults to TRUE
+    private static final String ARG_WRITE_TAGS = "writeTags";
+    private static final boolean DEFAULT_WRITE_TAGS = true;
+
     @Override
     protected TaskManager createTaskManagerImpl(TaskConfiguration taskConfig) {
-        // Read arguments: asterDir, repExisting, tagName
+        // Read arguments: asterDir, repExisting, tagName, writeTags, eleFile, eleFileType
         String asterDir = getStringArgument(taskConfig, ARG_ASTER_DIR, DEFAULT_ASTER_DIR);
         boolean replaceExistingTags = getBooleanArgument(taskConfig, ARG_REPLACE_EXISTING, DEFAULT_REPLACE_EXISTING);
         tagName = getStringArgument(taskConfig, TAG_NAME, tagName);
+        boolean writeTags = getBooleanArgument(taskConfig, ARG_WRITE_TAGS, DEFAULT_WRITE_TAGS);
+        String elevationFile = getStringArgument(taskConfig, ARG_ELEVATION_FILE, DEFAULT_ELEVATION_FILE);
+        String elevationFileType = getStringArgument(taskConfig, ARG_ELEVATION_FILE_TYPE, DEFAULT_ELEVATION_FILE_TYPE);
 
         File asterDirFile = new File(asterDir);
+        File elevationFileFile = elevationFile.isEmpty() ? null : new File(elevationFile);
+        ElevationFile.Encoding elevationEncoding;
+        try {
+            elevationEncoding = ElevationFile.Encoding.valueOf(elevationFileType.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new OsmosisRuntimeException("Argument " + ARG_ELEVATION_FILE_TYPE + " for task " + taskConfig.getId()
+                    + " must be short or float, not " + elevationFileType + ".", e);
+        }
 
         // Get the machinery working
         SinkSource task = new AsterPlugin_task(
                 asterDirFile,
                 replaceExistingTags,
-                tagName);
+                tagName,
+                writeTags,
+                elevationFileFile,
+                elevationEncoding);
 
         return new SinkSourceManager(taskConfig.getId(), task, taskConfig.getPipeArgs());
     }
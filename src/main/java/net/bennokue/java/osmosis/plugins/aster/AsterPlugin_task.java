@@ -11,6 +11,7 @@ import java.util.Map;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.openstreetmap.osmosis.core.OsmosisRuntimeException;
 import org.openstreetmap.osmosis.core.container.v0_6.BoundContainer;
 import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
 import org.openstreetmap.osmosis.core.container.v0_6.EntityProcessor;
@@ -89,6 +90,15 @@ public class AsterPlugin_task implements SinkSource, EntityProcessor {
      * Interpolate inbetween the data points in the ASTER coverage.
      */
     private Interpolation interpolation;
+    /**
+     * Store the elevations as tags at the nodes? Default: true.
+     */
+    private boolean writeTags = true;
+    /**
+     * Writes the elevations to a binary side file, if the user wants one (null
+     * otherwise). See {@link ElevationFile}.
+     */
+    private ElevationFileWriter elevationFileWriter = null;
 
     /**
      * Constructor.
@@ -100,6 +110,26 @@ public class AsterPlugin_task implements SinkSource, EntityProcessor {
      * stored within. Defaults to {@code ele}.
      */
     public AsterPlugin_task(final File asterDir, final boolean replaceExistingTags, String tagName) {
+        this(asterDir, replaceExistingTags, tagName, true, null, null);
+    }
+
+    /**
+     * Constructor with an optional binary elevation file. Tagging and the file
+     * can be combined; the file gets the same elevation the tag would get.
+     *
+     * @param asterDir Directory where the ASTER dem files reside.
+     * @param replaceExistingTags Replace existing elevation tags? {@code true}:
+     * Yes! {@code false}: Noo!
+     * @param tagName Define the string of the attribute the elevation will be
+     * stored within. Defaults to {@code ele}.
+     * @param writeTags Store the elevations as tags at the nodes?
+     * @param elevationFile Where to write the binary elevation file, or
+     * {@code null} for no file. The nodes have to be sorted by ID then.
+     * @param elevationEncoding How to store the elevations in the file.
+     * Ignored if there is no file, defaults to
+     * {@link ElevationFile.Encoding#SHORT}.
+     */
+    public AsterPlugin_task(final File asterDir, final boolean replaceExistingTags, String tagName, boolean writeTags, File elevationFile, ElevationFile.Encoding elevationEncoding) {
         if (null == asterDir) {
             throw new IllegalArgumentException("No ASTER directory given!");
         }
@@ -110,6 +140,20 @@ public class AsterPlugin_task implements SinkSource, EntityProcessor {
         this.replaceExistingTags = replaceExistingTags;
         this.tagName = tagName;
         this.interpolation = new InterpolationBilinear();
+        this.writeTags = writeTags;
+        if (!writeTags && null == elevationFile) {
+            throw new IllegalArgumentException("Neither tags nor an elevation file would be written!");
+        }
+        if (null != elevationFile) {
+            if (null == elevationEncoding) {
+                elevationEncoding = ElevationFile.Encoding.SHORT;
+            }
+            try {
+                this.elevationFileWriter = new ElevationFileWriter(elevationFile, elevationEncoding);
+            } catch (IOException e) {
+                throw new OsmosisRuntimeException("Unable to create elevation file " + elevationFile.getAbsolutePath(), e);
+            }
+        }
         this.refreshLogger();
     }
 
@@ -127,7 +171,30 @@ public class AsterPlugin_task implements SinkSource, EntityProcessor {
      * before use.
      */
     public AsterPlugin_task(final File asterDir, final boolean replaceExistingTags, String tagName, Map<String, AsterTile> missingTilesMap) {
-        this(asterDir, replaceExistingTags, tagName);
+        this(asterDir, replaceExistingTags, tagName, true, null, null, missingTilesMap);
+    }
+
+    /**
+     * Constructor with an optional binary elevation file and provided HashMap
+     * for storing information about missing tiles.
+     *
+     * @param asterDir Directory where the ASTER dem files reside.
+     * @param replaceExistingTags Replace existing elevation tags? {@code true}:
+     * Yes! {@code false}: Noo!
+     * @param tagName Define the string of the attribute the elevation will be
+     * stored within. Defaults to {@code ele}.
+     * @param writeTags Store the elevations as tags at the nodes?
+     * @param elevationFile Where to write the binary elevation file, or
+     * {@code null} for no file. The nodes have to be sorted by ID then.
+     * @param elevationEncoding How to store the elevations in the file.
+     * Ignored if there is no file, defaults to
+     * {@link ElevationFile.Encoding#SHORT}.
+     * @param missingTilesMap A Map where to store information about missing
+     * tiles. Useful when there is no sysout to inform the user. Will be cleared
+     * before use.
+     */
+    public AsterPlugin_task(final File asterDir, final boolean replaceExistingTags, String tagName, boolean writeTags, File elevationFile, ElevationFile.Encoding elevationEncoding, Map<String, AsterTile> missingTilesMap) {
+        this(asterDir, replaceExistingTags, tagName, writeTags, elevationFile, elevationEncoding);
         this.missingAsterTiles = missingTilesMap;
         this.missingAsterTiles.clear();
     }
@@ -168,19 +235,35 @@ public class AsterPlugin_task implements SinkSource, EntityProcessor {
         //check if it should be replaced or not
         boolean addHeight = true;
         if (pbf_tag != null) {
-            if (asterHeight.isNaN()) {
+            if (asterHeight.isNaN() || !replaceExistingTags) {
                 addHeight = false;
-            } else {
-                if (replaceExistingTags) {
-                    tags.remove(pbf_tag);
-                } else {
-                    addHeight = false;
-                }
             }
         }
 
-        //add new aster height tag
+        //the elevation file gets the same height as the tag
+        if (this.elevationFileWriter != null) {
+            double fileHeight = addHeight ? asterHeight : parseElevation(pbf_tag);
+            try {
+                this.elevationFileWriter.add(node.getId(), fileHeight);
+            } catch (IOException e) {
+                throw new OsmosisRuntimeException("Unable to write elevation file " + this.elevationFileWriter.getFile().getAbsolutePath(), e);
+            } catch (IllegalArgumentException e) {
+                // Thrown for unsorted nodes only.
+                throw new OsmosisRuntimeException(e.getMessage() + " Use --sort before --write-aster.", e);
+            }
+        }
+
+        //without tagging, the node stays as it is
+        if (!this.writeTags) {
+            sink.process(container);
+            return;
+        }
+
+        //replace the existing height tag by the new aster height tag
         if (addHeight) {
+            if (pbf_tag != null) {
+                tags.remove(pbf_tag);
+            }
             tags.add(new Tag(tagName, asterHeight.toString()));
         }
 
@@ -211,11 +294,24 @@ public class AsterPlugin_task implements SinkSource, EntityProcessor {
     public void complete() {
         System.out.println(this.generateListOfMissingTiles());
         // TODO Benno Give the user a shapefile of missing tiles, if (s)he wants *DEFERRED
+        if (this.elevationFileWriter != null) {
+            try {
+                this.elevationFileWriter.close();
+            } catch (IOException e) {
+                throw new OsmosisRuntimeException("Unable to complete elevation file " + this.elevationFileWriter.getFile().getAbsolutePath(), e);
+            }
+            log.log(Level.INFO, "Wrote {0} elevations to {1}", new Object[]{this.elevationFileWriter.getEntryCount(), this.elevationFileWriter.getFile()});
+        }
         sink.complete();
     }
 
     @Override
     public void release() {
+        if (this.elevationFileWriter != null) {
+            // Does nothing if complete() did its job, otherwise the run
+            // failed and the unfinished file is deleted.
+            this.elevationFileWriter.abort();
+        }
         sink.release();
     }
 
@@ -266,6 +362,25 @@ public class AsterPlugin_task implements SinkSource, EntityProcessor {
         return this.getInterpolatedElevation(coverage, lon, lat);
     }
 
+    /**
+     * Parses the value of an existing elevation tag for the elevation file.
+     *
+     * @param tag The elevation tag, may be null.
+     * @return The elevation, or NaN if there is no tag or it is not a plain
+     * number.
+     */
+    private static double parseElevation(Tag tag) {
+        if (tag == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(tag.getValue().trim());
+        } catch (NumberFormatException e) {
+            log.log(Level.FINER, "Cannot parse elevation tag value {0}", tag.getValue());
+            return Double.NaN;
+        }
+    }
+
     /**
      * Adds a missing tile to {@link #missingAsterTiles}.
      *
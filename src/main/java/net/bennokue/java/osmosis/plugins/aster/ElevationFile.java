@@ -0,0 +1,122 @@
+package net.bennokue.java.osmosis.plugins.aster;
+
+/**
+ * Constants describing the binary elevation side file, which stores node IDs
+ * and their elevations without the detour over OSM string tags. It is written
+ * by {@link ElevationFileWriter} and read by {@link ElevationFileReader}.
+ * <p>
+ * All values are big endian. The file consists of three parts:
+ * <ol>
+ * <li>A header of {@link #HEADER_SIZE} bytes: magic ({@code int}), version
+ * ({@code short}), encoding ({@code byte}), reserved ({@code byte}), block size
+ * ({@code int}), entry count ({@code long}), block count ({@code int}), offset
+ * of the block index ({@code long}).</li>
+ * <li>The blocks. Every block holds up to <i>block size</i> entries sorted by
+ * node ID: first the node IDs as unsigned {@code int} deltas to the base ID of
+ * the block, then the elevations in the chosen {@link Encoding}. As all
+ * entries of a block have the same width, a block can be searched in place.</li>
+ * <li>The block index: For every block its base node ID ({@code long}), the
+ * file offset of its data ({@code long}) and its entry count ({@code int}).</li>
+ * </ol>
+ */
+public final class ElevationFile {
+
+    /**
+     * The magic number at the start of every elevation file, "ASTE" in ASCII.
+     */
+    public static final int MAGIC = 0x41535445;
+    /**
+     * The version of the file format.
+     */
+    public static final short VERSION = 1;
+    /**
+     * The size of the header in bytes.
+     */
+    public static final int HEADER_SIZE = 32;
+    /**
+     * The size of one block index entry in bytes.
+     */
+    public static final int INDEX_ENTRY_SIZE = 20;
+    /**
+     * The size of a node ID delta inside a block in bytes.
+     */
+    public static final int DELTA_SIZE = 4;
+    /**
+     * The largest delta between a node ID and the base ID of its block.
+     */
+    public static final long MAX_DELTA = 0xFFFFFFFFL;
+    /**
+     * The default number of entries per block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    /**
+     * Marks a missing elevation when using {@link Encoding#SHORT}. With
+     * {@link Encoding#FLOAT}, NaN is stored instead.
+     */
+    public static final short VOID_SHORT = Short.MIN_VALUE;
+
+    private ElevationFile() {
+    }
+
+    /**
+     * Checks if a node ID can be stored as delta to a base ID. The subtraction
+     * overflows for IDs far apart (think Long.MIN_VALUE and Long.MAX_VALUE),
+     * so a negative difference does not fit either.
+     *
+     * @param baseId The base ID of the block.
+     * @param nodeId The node ID, not smaller than the base ID.
+     * @return {@code true} if the delta fits into {@link #MAX_DELTA}.
+     */
+    static boolean fitsDelta(long baseId, long nodeId) {
+        long delta = nodeId - baseId;
+        return delta >= 0 && delta <= MAX_DELTA;
+    }
+
+    /**
+     * How the elevations are stored.
+     */
+    public enum Encoding {
+
+        /**
+         * Elevations rounded to whole metres, stored as {@code short}. That's
+         * all the precision ASTER gives us anyway.
+         */
+        SHORT((byte) 0, 2),
+        /**
+         * Elevations stored as {@code float}, keeping the fractions of the
+         * interpolation.
+         */
+        FLOAT((byte) 1, 4);
+
+        /**
+         * The id of the encoding in the file header.
+         */
+        final byte id;
+        /**
+         * The size of one elevation in bytes.
+         */
+        final int size;
+
+        private Encoding(byte id, int size) {
+            this.id = id;
+            this.size = size;
+        }
+
+        /**
+         * Looks up the encoding stored in a file header.
+         *
+         * @param id The id from the header.
+         * @return The matching encoding.
+         * @throws IllegalArgumentException If there is no encoding with this
+         * id.
+         */
+        static Encoding fromId(byte id) {
+            for (Encoding encoding : values()) {
+                if (encoding.id == id) {
+                    return encoding;
+                }
+            }
+            throw new IllegalArgumentException("Unknown elevation encoding " + id);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package net.bennokue.java.osmosis.plugins.aster;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a binary elevation file written by {@link ElevationFileWriter}, see
+ * {@link ElevationFile} for the format. The blocks are memory-mapped, only the
+ * block index is loaded onto the heap. Looking up a node ID takes two binary
+ * searches (block index, then block), entries can also be accessed directly by
+ * their position.
+ * <p>
+ * Reading is thread-safe, closing is not.
+ */
+public class ElevationFileReader implements Closeable {
+
+    /**
+     * The maximum size of one mapped segment. A single MappedByteBuffer cannot
+     * exceed 2 GB, so larger files are mapped in several segments.
+     */
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+    private final RandomAccessFile raf;
+    private final ElevationFile.Encoding encoding;
+    private final long entryCount;
+    /**
+     * The block index: Base node ID, entry count and position of the first
+     * entry of every block.
+     */
+    private final long[] blockBaseIds;
+    private final int[] blockCounts;
+    private final long[] blockFirstEntries;
+    /**
+     * Where to find the data of every block: The segment and the offset
+     * inside it.
+     */
+    private final int[] blockSegments;
+    private final int[] blockSegmentOffsets;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Constructor. Opens and maps the file.
+     *
+     * @param file The elevation file.
+     * @throws IOException If the file cannot be read or is no elevation file.
+     */
+    public ElevationFileReader(File file) throws IOException {
+        this.raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = this.raf.getChannel();
+            if (channel.size() < ElevationFile.HEADER_SIZE) {
+                throw new IOException("Not an elevation file (too short): " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, ElevationFile.HEADER_SIZE);
+            if (header.getInt() != ElevationFile.MAGIC) {
+                throw new IOException("Not an elevation file (wrong magic number): " + file);
+            }
+            short version = header.getShort();
+            if (version != ElevationFile.VERSION) {
+                throw new IOException("Unsupported elevation file version " + version + ": " + file);
+            }
+            try {
+                this.encoding = ElevationFile.Encoding.fromId(header.get());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage() + ": " + file, e);
+            }
+            header.get(); // reserved
+            int blockSize = header.getInt();
+            this.entryCount = header.getLong();
+            int blockCount = header.getInt();
+            long indexOffset = header.getLong();
+            if (blockSize < 1 || this.entryCount < 0 || blockCount < 0 || indexOffset < ElevationFile.HEADER_SIZE) {
+                throw new IOException("Not an elevation file (corrupt header): " + file);
+            }
+            if (indexOffset + (long) blockCount * ElevationFile.INDEX_ENTRY_SIZE > channel.size()) {
+                throw new IOException("Elevation file is truncated: " + file);
+            }
+
+            // Load the block index
+            this.blockBaseIds = new long[blockCount];
+            this.blockCounts = new int[blockCount];
+            this.blockFirstEntries = new long[blockCount];
+            long[] blockOffsets = new long[blockCount];
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, (long) blockCount * ElevationFile.INDEX_ENTRY_SIZE);
+            long firstEntry = 0;
+            long blockEnd = ElevationFile.HEADER_SIZE;
+            for (int i = 0; i < blockCount; i++) {
+                this.blockBaseIds[i] = index.getLong();
+                blockOffsets[i] = index.getLong();
+                this.blockCounts[i] = index.getInt();
+                this.blockFirstEntries[i] = firstEntry;
+                firstEntry += this.blockCounts[i];
+                /*
+                 * The writer puts the blocks one after another, sorted by
+                 * their base IDs, between the header and the index. Anything
+                 * else would send the lookups astray. A block larger than a
+                 * segment could not be mapped at all.
+                 */
+                if (this.blockCounts[i] < 1 || this.blockCounts[i] > blockSize
+                        || blockOffsets[i] != blockEnd
+                        || this.blockLength(i) > MAX_SEGMENT_SIZE
+                        || (i > 0 && this.blockBaseIds[i] <= this.blockBaseIds[i - 1])) {
+                    throw new IOException("Not an elevation file (corrupt block index): " + file);
+                }
+                blockEnd += this.blockLength(i);
+            }
+            if (blockEnd != indexOffset) {
+                throw new IOException("Not an elevation file (blocks do not end at the index): " + file);
+            }
+            if (firstEntry != this.entryCount) {
+                throw new IOException("Not an elevation file (header says " + this.entryCount
+                        + " entries, blocks hold " + firstEntry + "): " + file);
+            }
+
+            // Map the blocks, as many per segment as fit in
+            this.blockSegments = new int[blockCount];
+            this.blockSegmentOffsets = new int[blockCount];
+            List<MappedByteBuffer> segmentList = new ArrayList<>();
+            int i = 0;
+            while (i < blockCount) {
+                long segmentStart = blockOffsets[i];
+                long segmentEnd = segmentStart;
+                int segment = segmentList.size();
+                while (i < blockCount && blockOffsets[i] + this.blockLength(i) - segmentStart <= MAX_SEGMENT_SIZE) {
+                    this.blockSegments[i] = segment;
+                    this.blockSegmentOffsets[i] = (int) (blockOffsets[i] - segmentStart);
+                    segmentEnd = blockOffsets[i] + this.blockLength(i);
+                    i++;
+                }
+                segmentList.add(channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart));
+            }
+            this.segments = segmentList.toArray(new MappedByteBuffer[segmentList.size()]);
+        } catch (IOException | RuntimeException e) {
+            this.raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param block The block.
+     * @return The length of the data of the given block in bytes.
+     */
+    private long blockLength(int block) {
+        return (long) this.blockCounts[block] * (ElevationFile.DELTA_SIZE + this.encoding.size);
+    }
+
+    /**
+     * @return The number of nodes in the file.
+     */
+    public long size() {
+        return this.entryCount;
+    }
+
+    /**
+     * @return How the elevations are stored in the file.
+     */
+    public ElevationFile.Encoding getEncoding() {
+        return this.encoding;
+    }
+
+    /**
+     * Looks up the elevation of a node.
+     *
+     * @param nodeId The ID of the node.
+     * @return The elevation of the node, or NaN if the node is not in the file
+     * or has no elevation.
+     */
+    public double getElevation(long nodeId) {
+        long position = this.indexOf(nodeId);
+        if (position < 0) {
+            return Double.NaN;
+        }
+        return this.elevationAt(position);
+    }
+
+    /**
+     * Searches the position of a node.
+     *
+     * @param nodeId The ID of the node.
+     * @return The position of the node in the file, usable with
+     * {@link #nodeIdAt(long)} and {@link #elevationAt(long)}, or -1 if the
+     * node is not in the file.
+     */
+    public long indexOf(long nodeId) {
+        int block = this.findBlock(nodeId);
+        if (block < 0) {
+            return -1;
+        }
+        if (!ElevationFile.fitsDelta(this.blockBaseIds[block], nodeId)) {
+            return -1;
+        }
+        long delta = nodeId - this.blockBaseIds[block];
+        ByteBuffer segment = this.segments[this.blockSegments[block]];
+        int offset = this.blockSegmentOffsets[block];
+        int low = 0;
+        int high = this.blockCounts[block] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midDelta = segment.getInt(offset + mid * ElevationFile.DELTA_SIZE) & ElevationFile.MAX_DELTA;
+            if (midDelta < delta) {
+                low = mid + 1;
+            } else if (midDelta > delta) {
+                high = mid - 1;
+            } else {
+                return this.blockFirstEntries[block] + mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gives back the node ID at the given position.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return The node ID.
+     */
+    public long nodeIdAt(long position) {
+        int block = this.blockOfPosition(position);
+        int entry = (int) (position - this.blockFirstEntries[block]);
+        ByteBuffer segment = this.segments[this.blockSegments[block]];
+        int offset = this.blockSegmentOffsets[block] + entry * ElevationFile.DELTA_SIZE;
+        return this.blockBaseIds[block] + (segment.getInt(offset) & ElevationFile.MAX_DELTA);
+    }
+
+    /**
+     * Gives back the elevation at the given position.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return The elevation, or NaN if the node has no elevation.
+     */
+    public double elevationAt(long position) {
+        int block = this.blockOfPosition(position);
+        int entry = (int) (position - this.blockFirstEntries[block]);
+        ByteBuffer segment = this.segments[this.blockSegments[block]];
+        // The elevations follow behind the deltas of the block.
+        int offset = this.blockSegmentOffsets[block]
+                + this.blockCounts[block] * ElevationFile.DELTA_SIZE
+                + entry * this.encoding.size;
+        switch (this.encoding) {
+            case SHORT:
+                short elevation = segment.getShort(offset);
+                return elevation == ElevationFile.VOID_SHORT ? Double.NaN : elevation;
+            case FLOAT:
+                return segment.getFloat(offset);
+            default:
+                throw new IllegalStateException("Unknown elevation encoding " + this.encoding);
+        }
+    }
+
+    /**
+     * Finds the block which might contain the given node ID.
+     *
+     * @param nodeId The node ID.
+     * @return The last block with a base ID not greater than the node ID, or
+     * -1 if the node ID is smaller than all of them.
+     */
+    private int findBlock(long nodeId) {
+        int low = 0;
+        int high = this.blockBaseIds.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (this.blockBaseIds[mid] <= nodeId) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Finds the block containing the given position.
+     *
+     * @param position The position.
+     * @return The block.
+     * @throws IndexOutOfBoundsException If the position is out of range.
+     */
+    private int blockOfPosition(long position) {
+        if (position < 0 || position >= this.entryCount) {
+            throw new IndexOutOfBoundsException("Position " + position + " out of range, size is " + this.entryCount);
+        }
+        int low = 0;
+        int high = this.blockFirstEntries.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (this.blockFirstEntries[mid] <= position) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Closes the file. The mappings stay valid until they are garbage
+     * collected, but don't use this reader afterwards.
+     *
+     * @throws IOException If closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        this.raf.close();
+    }
+}
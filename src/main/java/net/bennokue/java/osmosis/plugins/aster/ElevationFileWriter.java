@@ -0,0 +1,267 @@
+package net.bennokue.java.osmosis.plugins.aster;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Writes node elevations into a binary elevation file, see
+ * {@link ElevationFile} for the format. The nodes have to be added in strictly
+ * ascending order of their IDs (use {@code --sort} in front of the plugin).
+ * Only one block is held in memory, so the file can be written on the fly.
+ */
+public class ElevationFileWriter implements Closeable {
+
+    /**
+     * The file we are writing to.
+     */
+    private final File file;
+    /**
+     * How the elevations are stored.
+     */
+    private final ElevationFile.Encoding encoding;
+    /**
+     * The maximum number of entries per block.
+     */
+    private final int blockSize;
+    /**
+     * The stream for the header and the blocks.
+     */
+    private final DataOutputStream out;
+    /**
+     * Collects the block index, which is appended when closing.
+     */
+    private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    private final DataOutputStream index = new DataOutputStream(indexBytes);
+    /**
+     * The node IDs and elevations of the current block.
+     */
+    private final long[] blockIds;
+    private final double[] blockElevations;
+    /**
+     * The number of entries in the current block.
+     */
+    private int blockFill = 0;
+    /**
+     * The number of blocks written so far.
+     */
+    private int blockCount = 0;
+    /**
+     * The number of entries written so far.
+     */
+    private long entryCount = 0;
+    /**
+     * The current offset in the file.
+     */
+    private long offset = 0;
+    /**
+     * The last node ID added, for checking the order.
+     */
+    private long lastId = Long.MIN_VALUE;
+    private boolean closed = false;
+    /**
+     * Set when {@link #close()} has written the header, i.e. the file is
+     * complete.
+     */
+    private boolean finished = false;
+
+    /**
+     * Constructor. Creates (or overwrites) the file.
+     *
+     * @param file The file to write.
+     * @param encoding How the elevations will be stored.
+     * @param blockSize The maximum number of entries per block. A block must
+     * not exceed 2 GB.
+     * @throws IOException If the file cannot be created.
+     */
+    public ElevationFileWriter(File file, ElevationFile.Encoding encoding, int blockSize) throws IOException {
+        if (null == file) {
+            throw new IllegalArgumentException("No elevation file given!");
+        }
+        if (null == encoding) {
+            throw new IllegalArgumentException("No elevation encoding given!");
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        // The reader maps every block in one piece, and a mapping ends at 2 GB.
+        if ((long) blockSize * (ElevationFile.DELTA_SIZE + encoding.size) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Block size too large for " + encoding + " elevations: " + blockSize);
+        }
+        this.file = file;
+        this.encoding = encoding;
+        this.blockSize = blockSize;
+        this.blockIds = new long[blockSize];
+        this.blockElevations = new double[blockSize];
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        // Placeholder, the real header is written when closing.
+        this.out.write(new byte[ElevationFile.HEADER_SIZE]);
+        this.offset = ElevationFile.HEADER_SIZE;
+    }
+
+    /**
+     * Constructor using {@link ElevationFile#DEFAULT_BLOCK_SIZE}.
+     *
+     * @param file The file to write.
+     * @param encoding How the elevations will be stored.
+     * @throws IOException If the file cannot be created.
+     */
+    public ElevationFileWriter(File file, ElevationFile.Encoding encoding) throws IOException {
+        this(file, encoding, ElevationFile.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Adds the elevation of a node.
+     *
+     * @param nodeId The ID of the node. Must be greater than the ID of the
+     * node added before.
+     * @param elevation The elevation, NaN if there is none.
+     * @throws IOException If writing fails.
+     * @throws IllegalArgumentException If the node IDs are not strictly
+     * ascending.
+     * @throws IllegalStateException If the writer has already been closed.
+     */
+    public void add(long nodeId, double elevation) throws IOException {
+        if (this.closed) {
+            throw new IllegalStateException("Elevation file " + this.file + " has already been closed.");
+        }
+        if (this.entryCount > 0 && nodeId <= this.lastId) {
+            throw new IllegalArgumentException("Node " + nodeId + " follows node " + this.lastId
+                    + ", but the elevation file needs nodes sorted by ID.");
+        }
+        // Start a new block if this one is full or the delta does not fit.
+        if (this.blockFill == this.blockSize
+                || (this.blockFill > 0 && !ElevationFile.fitsDelta(this.blockIds[0], nodeId))) {
+            this.writeBlock();
+        }
+        this.blockIds[this.blockFill] = nodeId;
+        this.blockElevations[this.blockFill] = elevation;
+        this.blockFill++;
+        this.entryCount++;
+        this.lastId = nodeId;
+    }
+
+    /**
+     * Writes the current block and adds it to the index.
+     *
+     * @throws IOException If writing fails.
+     */
+    private void writeBlock() throws IOException {
+        long baseId = this.blockIds[0];
+        this.index.writeLong(baseId);
+        this.index.writeLong(this.offset);
+        this.index.writeInt(this.blockFill);
+
+        for (int i = 0; i < this.blockFill; i++) {
+            // Deltas are unsigned, so the cast keeps the lower 32 bits.
+            this.out.writeInt((int) (this.blockIds[i] - baseId));
+        }
+        for (int i = 0; i < this.blockFill; i++) {
+            double elevation = this.blockElevations[i];
+            switch (this.encoding) {
+                case SHORT:
+                    this.out.writeShort(toShort(elevation));
+                    break;
+                case FLOAT:
+                    this.out.writeFloat((float) elevation);
+                    break;
+            }
+        }
+        this.offset += (long) this.blockFill * (ElevationFile.DELTA_SIZE + this.encoding.size);
+        this.blockCount++;
+        this.blockFill = 0;
+    }
+
+    /**
+     * Rounds an elevation to whole metres for {@link ElevationFile.Encoding#SHORT}.
+     *
+     * @param elevation The elevation, may be NaN.
+     * @return The rounded elevation, or {@link ElevationFile#VOID_SHORT} for
+     * NaN.
+     */
+    private static short toShort(double elevation) {
+        if (Double.isNaN(elevation)) {
+            return ElevationFile.VOID_SHORT;
+        }
+        long rounded = Math.round(elevation);
+        // Keep VOID_SHORT free for void elevations.
+        return (short) Math.max(Short.MIN_VALUE + 1, Math.min(Short.MAX_VALUE, rounded));
+    }
+
+    /**
+     * Writes the remaining block, the index and the header and closes the
+     * file. Calling it more than once does no harm.
+     *
+     * @throws IOException If writing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            if (this.blockFill > 0) {
+                this.writeBlock();
+            }
+            this.index.flush();
+            this.indexBytes.writeTo(this.out);
+        } finally {
+            this.out.close();
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.writeInt(ElevationFile.MAGIC);
+            raf.writeShort(ElevationFile.VERSION);
+            raf.writeByte(this.encoding.id);
+            raf.writeByte(0);
+            raf.writeInt(this.blockSize);
+            raf.writeLong(this.entryCount);
+            raf.writeInt(this.blockCount);
+            // The index starts right behind the last block.
+            raf.writeLong(this.offset);
+        }
+        this.finished = true;
+    }
+
+    /**
+     * Gives up on an unfinished file: Closes it without writing the header and
+     * deletes it, so nobody mistakes a half-written file for a complete one.
+     * Does nothing if {@link #close()} has completed the file. Use it when
+     * the run fails.
+     */
+    public void abort() {
+        if (this.finished) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            // We are throwing the file away anyway.
+        }
+        if (this.file.exists() && !this.file.delete()) {
+            // At least its header is still zeroed, so readers will reject it.
+            this.file.deleteOnExit();
+        }
+    }
+
+    /**
+     * @return The number of nodes added so far.
+     */
+    public long getEntryCount() {
+        return this.entryCount;
+    }
+
+    /**
+     * @return The file we are writing to.
+     */
+    public File getFile() {
+        return this.file;
+    }
+}
@@ -0,0 +1,134 @@
+package net.bennokue.java.osmosis.plugins.aster;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openstreetmap.osmosis.core.OsmosisRuntimeException;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.container.v0_6.NodeContainer;
+import org.openstreetmap.osmosis.core.domain.v0_6.CommonEntityData;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.OsmUser;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs nodes through {@link AsterPlugin_task} with an empty ASTER directory,
+ * so all ASTER heights are NaN, and checks what reaches the sink and the
+ * elevation file.
+ */
+public class AsterPlugin_taskTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File asterDir;
+    private File elevationFile;
+    private CapturingSink sink;
+
+    @Before
+    public void setUp() throws IOException {
+        this.asterDir = this.folder.newFolder("aster");
+        this.elevationFile = new File(this.folder.getRoot(), "nodes.ele");
+        this.sink = new CapturingSink();
+    }
+
+    private static Node node(long id, Tag... tags) {
+        Collection<Tag> tagList = new ArrayList<>();
+        for (Tag tag : tags) {
+            tagList.add(tag);
+        }
+        CommonEntityData ced = new CommonEntityData(id, 1, new Date(0), OsmUser.NONE, 1, tagList);
+        return new Node(ced, 47.5, 10.5);
+    }
+
+    @Test
+    public void withoutTagsNodesPassUntouched() throws IOException {
+        AsterPlugin_task task = new AsterPlugin_task(this.asterDir, true, "ele", false, this.elevationFile, ElevationFile.Encoding.SHORT);
+        task.setSink(this.sink);
+        Node node = node(1, new Tag("name", "Gipfel"));
+        task.process(new NodeContainer(node));
+        task.complete();
+        task.release();
+
+        assertEquals(1, this.sink.entities.size());
+        Node passed = (Node) this.sink.entities.get(0).getEntity();
+        assertSame(node, passed);
+        assertEquals(1, passed.getTags().size());
+        assertEquals("name", passed.getTags().iterator().next().getKey());
+        try (ElevationFileReader reader = new ElevationFileReader(this.elevationFile)) {
+            assertEquals(1, reader.size());
+            assertTrue(Double.isNaN(reader.getElevation(1)));
+        }
+    }
+
+    @Test
+    public void keptTagGoesToTheFile() throws IOException {
+        AsterPlugin_task task = new AsterPlugin_task(this.asterDir, false, "ele", true, this.elevationFile, ElevationFile.Encoding.FLOAT);
+        task.setSink(this.sink);
+        task.process(new NodeContainer(node(1, new Tag("ele", "1234.5"))));
+        task.process(new NodeContainer(node(2, new Tag("ele", "very high"))));
+        task.complete();
+        task.release();
+
+        assertEquals(2, this.sink.entities.size());
+        try (ElevationFileReader reader = new ElevationFileReader(this.elevationFile)) {
+            assertEquals(1234.5, reader.getElevation(1), 0);
+            assertTrue(Double.isNaN(reader.getElevation(2)));
+        }
+    }
+
+    @Test
+    public void unsortedNodesSuggestSorting() {
+        AsterPlugin_task task = new AsterPlugin_task(this.asterDir, true, "ele", false, this.elevationFile, ElevationFile.Encoding.SHORT);
+        task.setSink(this.sink);
+        try {
+            task.process(new NodeContainer(node(2)));
+            task.process(new NodeContainer(node(1)));
+            fail("Unsorted nodes accepted");
+        } catch (OsmosisRuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("--sort"));
+        } finally {
+            task.release();
+        }
+        // The run failed, so there must not be a file pretending otherwise.
+        assertFalse(this.elevationFile.exists());
+    }
+
+    /**
+     * Remembers everything it gets.
+     */
+    private static class CapturingSink implements Sink {
+
+        private final List<EntityContainer> entities = new ArrayList<>();
+
+        @Override
+        public void initialize(Map<String, Object> metaData) {
+        }
+
+        @Override
+        public void process(EntityContainer entityContainer) {
+            this.entities.add(entityContainer);
+        }
+
+        @Override
+        public void complete() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package net.bennokue.java.osmosis.plugins.aster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes elevation files with {@link ElevationFileWriter} and reads them back
+ * with {@link ElevationFileReader}.
+ */
+public class ElevationFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Small blocks, so that a few hundred nodes already span many of them.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Generates strictly ascending node IDs, with small negative IDs, gaps
+     * which do not fit into one block and the extreme IDs at both ends.
+     *
+     * @param count The number of IDs.
+     * @return The IDs.
+     */
+    private static long[] generateIds(int count) {
+        long[] ids = new long[count];
+        ids[0] = Long.MIN_VALUE + 1;
+        long id = -100;
+        for (int i = 1; i < count - 1; i++) {
+            // Every 50th node is too far away for a delta.
+            id += (i % 50 == 0) ? 10000000000L : 1 + (i % 7);
+            ids[i] = id;
+        }
+        ids[count - 1] = Long.MAX_VALUE;
+        return ids;
+    }
+
+    /**
+     * @param i The position of the node.
+     * @return The elevation of the node, every 9th one is void.
+     */
+    private static double elevation(int i) {
+        return (i % 9 == 0) ? Double.NaN : (i % 4000) - 400 + 0.25;
+    }
+
+    private File write(ElevationFile.Encoding encoding, long[] ids) throws IOException {
+        File file = this.folder.newFile();
+        try (ElevationFileWriter writer = new ElevationFileWriter(file, encoding, BLOCK_SIZE)) {
+            for (int i = 0; i < ids.length; i++) {
+                writer.add(ids[i], elevation(i));
+            }
+            assertEquals(ids.length, writer.getEntryCount());
+        }
+        return file;
+    }
+
+    private void assertRoundTrip(ElevationFile.Encoding encoding) throws IOException {
+        long[] ids = generateIds(1000);
+        File file = this.write(encoding, ids);
+        try (ElevationFileReader reader = new ElevationFileReader(file)) {
+            assertEquals(encoding, reader.getEncoding());
+            assertEquals(ids.length, reader.size());
+            for (int i = 0; i < ids.length; i++) {
+                double expected = elevation(i);
+                if (!Double.isNaN(expected)) {
+                    expected = (encoding == ElevationFile.Encoding.SHORT) ? Math.round(expected) : (float) expected;
+                }
+                assertEquals(i, reader.indexOf(ids[i]));
+                assertEquals(ids[i], reader.nodeIdAt(i));
+                assertEquals(expected, reader.elevationAt(i), 0);
+                assertEquals(expected, reader.getElevation(ids[i]), 0);
+                // Between two nodes, there is nothing.
+                if (i + 1 < ids.length && ids[i + 1] != ids[i] + 1) {
+                    assertEquals(-1, reader.indexOf(ids[i] + 1));
+                    assertTrue(Double.isNaN(reader.getElevation(ids[i] + 1)));
+                }
+            }
+            assertEquals(-1, reader.indexOf(Long.MIN_VALUE));
+        }
+    }
+
+    @Test
+    public void roundTripShort() throws IOException {
+        this.assertRoundTrip(ElevationFile.Encoding.SHORT);
+    }
+
+    @Test
+    public void roundTripFloat() throws IOException {
+        this.assertRoundTrip(ElevationFile.Encoding.FLOAT);
+    }
+
+    @Test
+    public void extremeIdsNextToEachOther() throws IOException {
+        // The delta between these two overflows a long.
+        long[] ids = {Long.MIN_VALUE + 1, Long.MAX_VALUE};
+        File file = this.write(ElevationFile.Encoding.FLOAT, ids);
+        try (ElevationFileReader reader = new ElevationFileReader(file)) {
+            assertEquals(Long.MIN_VALUE + 1, reader.nodeIdAt(0));
+            assertEquals(Long.MAX_VALUE, reader.nodeIdAt(1));
+            assertEquals(1, reader.indexOf(Long.MAX_VALUE));
+            assertEquals((float) elevation(1), reader.getElevation(Long.MAX_VALUE), 0);
+        }
+    }
+
+    @Test
+    public void shortElevationsAreClamped() throws IOException {
+        File file = this.folder.newFile();
+        try (ElevationFileWriter writer = new ElevationFileWriter(file, ElevationFile.Encoding.SHORT)) {
+            writer.add(1, -1e6);
+            writer.add(2, 1e6);
+        }
+        try (ElevationFileReader reader = new ElevationFileReader(file)) {
+            assertEquals(Short.MIN_VALUE + 1, reader.getElevation(1), 0);
+            assertEquals(Short.MAX_VALUE, reader.getElevation(2), 0);
+        }
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        File file = this.write(ElevationFile.Encoding.SHORT, new long[0]);
+        try (ElevationFileReader reader = new ElevationFileReader(file)) {
+            assertEquals(0, reader.size());
+            assertEquals(-1, reader.indexOf(42));
+            assertTrue(Double.isNaN(reader.getElevation(42)));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void positionOutOfRange() throws IOException {
+        File file = this.write(ElevationFile.Encoding.SHORT, generateIds(10));
+        try (ElevationFileReader reader = new ElevationFileReader(file)) {
+            reader.elevationAt(10);
+        }
+    }
+
+    @Test
+    public void unsortedNodesAreRejected() throws IOException {
+        File file = this.folder.newFile();
+        try (ElevationFileWriter writer = new ElevationFileWriter(file, ElevationFile.Encoding.SHORT)) {
+            writer.add(5, 1);
+            try {
+                writer.add(5, 1);
+                fail("Duplicate node ID accepted");
+            } catch (IllegalArgumentException e) {
+                // Fine.
+            }
+            try {
+                writer.add(4, 1);
+                fail("Descending node ID accepted");
+            } catch (IllegalArgumentException e) {
+                // Fine.
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLargeBlockSizeIsRejected() throws IOException {
+        // 300M FLOAT entries need 2.4 GB, more than one mapping can hold.
+        new ElevationFileWriter(this.folder.newFile(), ElevationFile.Encoding.FLOAT, 300000000);
+    }
+
+    @Test
+    public void abortDeletesTheFile() throws IOException {
+        File file = this.folder.newFile();
+        ElevationFileWriter writer = new ElevationFileWriter(file, ElevationFile.Encoding.SHORT, BLOCK_SIZE);
+        long[] ids = generateIds(100);
+        for (int i = 0; i < ids.length; i++) {
+            writer.add(ids[i], elevation(i));
+        }
+        writer.abort();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void abortKeepsAFinishedFile() throws IOException {
+        File file = this.folder.newFile();
+        ElevationFileWriter writer = new ElevationFileWriter(file, ElevationFile.Encoding.SHORT);
+        writer.add(1, 100);
+        writer.close();
+        writer.abort();
+        try (ElevationFileReader reader = new ElevationFileReader(file)) {
+            assertEquals(100, reader.getElevation(1), 0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void unfinishedFileIsRejected() throws IOException {
+        File file = this.folder.newFile();
+        ElevationFileWriter writer = new ElevationFileWriter(file, ElevationFile.Encoding.SHORT);
+        try {
+            // Enough nodes to get past the write buffer and onto the disk.
+            for (int i = 1; i <= 20000; i++) {
+                writer.add(i, 100);
+            }
+            assertTrue(file.length() > ElevationFile.HEADER_SIZE);
+            // Neither closed nor aborted, the header is still zeroed.
+            new ElevationFileReader(file).close();
+        } finally {
+            writer.abort();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongEntryCountIsRejected() throws IOException {
+        File file = this.write(ElevationFile.Encoding.SHORT, generateIds(100));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // The entry count follows magic, version, encoding, reserved and block size.
+            raf.seek(12);
+            raf.writeLong(1000);
+        }
+        new ElevationFileReader(file).close();
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFileIsRejected() throws IOException {
+        File file = this.write(ElevationFile.Encoding.SHORT, generateIds(100));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        new ElevationFileReader(file).close();
+    }
+}